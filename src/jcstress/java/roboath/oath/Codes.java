@@ -0,0 +1,132 @@
+package roboath.oath;
+
+import com.google.common.util.concurrent.Futures;
+import roboath.Config;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RFC 4226 codes computed independently of the library under test, and the service the stress tests run against.
+ */
+final class Codes {
+    static final long START = 200;
+    static final byte[] KEY = new byte[20];
+    static final byte[] NEW_KEY = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20};
+
+    /**
+     * One in-memory service, with a running writer, shared by every test state. Starting one per state would cost a
+     * thread each, and jcstress doesn't run the arbiter for every state it allocates, so they couldn't all be stopped.
+     */
+    static final Service SERVICE = start(null);
+
+    /**
+     * Like {@link #SERVICE}, but journalled to a file in a temporary directory, for tests that check what a restart
+     * would load.
+     */
+    static final Path JOURNAL = journalFile();
+    static final Service JOURNALLED = start(JOURNAL);
+
+    private static final AtomicLong users = new AtomicLong();
+
+    private Codes() {
+    }
+
+    static Record hotpRecord() {
+        return Record.builder().mode("HOTP").key(KEY).movingFactor(START).build();
+    }
+
+    /**
+     * Create a user of its own for one test state, with {@code record}, through the shared service's writer.
+     */
+    static String create(Record record) {
+        return create(SERVICE, record);
+    }
+
+    static String create(Service service, Record record) {
+        String user = "user" + users.incrementAndGet();
+        if (!apply(service, Mutation.create(user, record)))
+            throw new IllegalStateException("Unable to create " + user);
+        return user;
+    }
+
+    /**
+     * Commit {@code mutation} through the shared service's writer, and wait for it.
+     */
+    static boolean apply(Mutation mutation) {
+        return apply(SERVICE, mutation);
+    }
+
+    static boolean apply(Service service, Mutation mutation) {
+        return Futures.getUnchecked(service.apply(Collections.singletonList(mutation))).get(0);
+    }
+
+    /**
+     * @return {@code user}'s counter as a restart would load it from {@link #JOURNAL}, once everything the journalled
+     *     service has acknowledged so far has been committed.
+     */
+    static long replayedCounter(String user) {
+        // An empty batch still drains and syncs any pending counter advances before it completes.
+        Futures.getUnchecked(JOURNALLED.apply(Collections.emptyList()));
+        ConcurrentMap<String, Record> data = new ConcurrentHashMap<>();
+        try {
+            Journal.replay(JOURNAL, data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return data.get(user).getMovingFactor();
+    }
+
+    private static Path journalFile() {
+        try {
+            Path dir = Files.createTempDirectory("roboath-jcstress");
+            Path file = dir.resolve("tokens.journal");
+            // Deleted in the reverse order of registration, so the directory is empty by the time it's reached.
+            dir.toFile().deleteOnExit();
+            file.toFile().deleteOnExit();
+            file.resolveSibling(file.getFileName() + ".tmp").toFile().deleteOnExit();
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Service start(Path dataFile) {
+        Config config = Config.builder()
+            .privateKey(Paths.get("unused"))
+            .certificate(Paths.get("unused"))
+            .dataFile(dataFile)
+            .build();
+        Service service = new Service(config);
+        service.startAsync().awaitRunning();
+        return service;
+    }
+
+    static String hotp(byte[] key, long movingFactor) {
+        byte[] hash;
+        try {
+            Mac mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(key, "RAW"));
+            hash = mac.doFinal(ByteBuffer.allocate(8).putLong(movingFactor).array());
+        } catch (GeneralSecurityException e) {
+            throw new AssertionError(e);
+        }
+        int offset = hash[hash.length - 1] & 0xf;
+        int binary = (hash[offset] & 0x7f) << 24
+            | (hash[offset + 1] & 0xff) << 16
+            | (hash[offset + 2] & 0xff) << 8
+            | (hash[offset + 3] & 0xff);
+        return String.format("%06d", binary % 1000000);
+    }
+}
@@ -0,0 +1,39 @@
+package roboath.oath;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.ZZJ_Result;
+
+@JCStressTest
+@Description("Consecutive HOTP codes validated at once never move the counter backwards.")
+@Outcome(id = "true, true, 202", expect = Expect.ACCEPTABLE, desc = "Earlier code first; both accepted")
+@Outcome(id = "false, true, 202", expect = Expect.ACCEPTABLE, desc = "Later code first; earlier code is now stale")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Counter advance lost")
+@State
+public class HOTPCounterMonotonic {
+    private final Service service = Codes.SERVICE;
+    private final String user = Codes.create(Codes.hotpRecord());
+    private final String earlier = Codes.hotp(Codes.KEY, Codes.START);
+    private final String later = Codes.hotp(Codes.KEY, Codes.START + 1);
+
+    @Actor
+    public void actor1(ZZJ_Result r) {
+        r.r1 = service.validateHOTP(user, earlier);
+    }
+
+    @Actor
+    public void actor2(ZZJ_Result r) {
+        r.r2 = service.validateHOTP(user, later);
+    }
+
+    @Arbiter
+    public void arbiter(ZZJ_Result r) {
+        r.r3 = service.get(user).getMovingFactor();
+        Codes.apply(Mutation.delete(user));
+    }
+}
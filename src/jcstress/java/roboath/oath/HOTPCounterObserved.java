@@ -0,0 +1,48 @@
+package roboath.oath;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.JJ_Result;
+
+@JCStressTest
+@Description("A reader never sees the HOTP counter go backwards while consecutive codes are being validated.")
+@Outcome(id = "200, 200", expect = Expect.ACCEPTABLE, desc = "Both reads before any advance")
+@Outcome(id = "200, 201", expect = Expect.ACCEPTABLE, desc = "One advance between the reads")
+@Outcome(id = "200, 202", expect = Expect.ACCEPTABLE, desc = "Both advances between the reads")
+@Outcome(id = "201, 201", expect = Expect.ACCEPTABLE, desc = "Both reads between the advances")
+@Outcome(id = "201, 202", expect = Expect.ACCEPTABLE, desc = "Second advance between the reads")
+@Outcome(id = "202, 202", expect = Expect.ACCEPTABLE, desc = "Both reads after both advances")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Counter went backwards, or skipped")
+@State
+public class HOTPCounterObserved {
+    private final Service service = Codes.SERVICE;
+    private final String user = Codes.create(Codes.hotpRecord());
+    private final String earlier = Codes.hotp(Codes.KEY, Codes.START);
+    private final String later = Codes.hotp(Codes.KEY, Codes.START + 1);
+
+    @Actor
+    public void actor1() {
+        service.validateHOTP(user, earlier);
+    }
+
+    @Actor
+    public void actor2() {
+        service.validateHOTP(user, later);
+    }
+
+    @Actor
+    public void reader(JJ_Result r) {
+        r.r1 = service.get(user).getMovingFactor();
+        r.r2 = service.get(user).getMovingFactor();
+    }
+
+    @Arbiter
+    public void arbiter() {
+        Codes.apply(Mutation.delete(user));
+    }
+}
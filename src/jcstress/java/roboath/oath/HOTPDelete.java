@@ -0,0 +1,37 @@
+package roboath.oath;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.ZZ_Result;
+
+@JCStressTest
+@Description("A user deleted while a validation is in flight stays deleted.")
+@Outcome(id = "true, false", expect = Expect.ACCEPTABLE, desc = "Validation first, then delete")
+@Outcome(id = "false, false", expect = Expect.ACCEPTABLE, desc = "Delete first, or during validation")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Deleted user brought back")
+@State
+public class HOTPDelete {
+    private final Service service = Codes.SERVICE;
+    private final String user = Codes.create(Codes.hotpRecord());
+    private final String code = Codes.hotp(Codes.KEY, Codes.START);
+
+    @Actor
+    public void validate(ZZ_Result r) {
+        r.r1 = service.validateHOTP(user, code);
+    }
+
+    @Actor
+    public void delete() {
+        Codes.apply(Mutation.delete(user));
+    }
+
+    @Arbiter
+    public void arbiter(ZZ_Result r) {
+        r.r2 = service.get(user) != null;
+    }
+}
@@ -0,0 +1,39 @@
+package roboath.oath;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.ZZJ_Result;
+
+@JCStressTest
+@Description("The journalled counter never falls behind a code the service has accepted, so a restart can't replay it.")
+@Outcome(id = "true, true, 202", expect = Expect.ACCEPTABLE, desc = "Both accepted, in order")
+@Outcome(id = "false, true, 202", expect = Expect.ACCEPTABLE, desc = "Later code first; earlier one is now behind")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Accepted advance lost from the journal")
+@State
+public class HOTPJournalAdvance {
+    private final Service service = Codes.JOURNALLED;
+    private final String user = Codes.create(service, Codes.hotpRecord());
+    private final String earlier = Codes.hotp(Codes.KEY, Codes.START);
+    private final String later = Codes.hotp(Codes.KEY, Codes.START + 1);
+
+    @Actor
+    public void first(ZZJ_Result r) {
+        r.r1 = service.validateHOTP(user, earlier);
+    }
+
+    @Actor
+    public void second(ZZJ_Result r) {
+        r.r2 = service.validateHOTP(user, later);
+    }
+
+    @Arbiter
+    public void arbiter(ZZJ_Result r) {
+        r.r3 = Codes.replayedCounter(user);
+        Codes.apply(service, Mutation.delete(user));
+    }
+}
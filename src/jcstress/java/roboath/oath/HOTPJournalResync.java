@@ -0,0 +1,38 @@
+package roboath.oath;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.ZZJ_Result;
+
+@JCStressTest
+@Description("A validation's counter advance, journalled later, never undoes a resync in the journal.")
+@Outcome(id = "true, true, 220", expect = Expect.ACCEPTABLE, desc = "Validation first, then resync")
+@Outcome(id = "false, true, 220", expect = Expect.ACCEPTABLE, desc = "Resync first; code is now outside the window")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Resync lost from the journal")
+@State
+public class HOTPJournalResync {
+    private final Service service = Codes.JOURNALLED;
+    private final String user = Codes.create(service, Codes.hotpRecord());
+    private final String code = Codes.hotp(Codes.KEY, Codes.START);
+
+    @Actor
+    public void validate(ZZJ_Result r) {
+        r.r1 = service.validateHOTP(user, code);
+    }
+
+    @Actor
+    public void resync(ZZJ_Result r) {
+        r.r2 = Codes.apply(service, Mutation.resync(user, Codes.START + 20));
+    }
+
+    @Arbiter
+    public void arbiter(ZZJ_Result r) {
+        r.r3 = Codes.replayedCounter(user);
+        Codes.apply(service, Mutation.delete(user));
+    }
+}
@@ -0,0 +1,38 @@
+package roboath.oath;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.ZZ_Result;
+
+@JCStressTest
+@Description("An HOTP validation racing a reload of the user as a TOTP token neither fails nor undoes the reload.")
+@Outcome(id = "true, true", expect = Expect.ACCEPTABLE, desc = "Validation first, then reload")
+@Outcome(id = "false, true", expect = Expect.ACCEPTABLE, desc = "Reload first, or during validation; not an HOTP token")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Stale HOTP record written back")
+@State
+public class HOTPModeChange {
+    private final Service service = Codes.SERVICE;
+    private final String user = Codes.create(Codes.hotpRecord());
+    private final String code = Codes.hotp(Codes.KEY, Codes.START);
+
+    @Actor
+    public void validate(ZZ_Result r) {
+        r.r1 = service.validateHOTP(user, code);
+    }
+
+    @Actor
+    public void reload() {
+        Codes.apply(Mutation.update(user, Record.builder().mode("TOTP").key(Codes.KEY).build()));
+    }
+
+    @Arbiter
+    public void arbiter(ZZ_Result r) {
+        r.r2 = "TOTP".equals(service.get(user).getMode());
+        Codes.apply(Mutation.delete(user));
+    }
+}
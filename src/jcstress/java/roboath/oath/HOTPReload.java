@@ -0,0 +1,43 @@
+package roboath.oath;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.ZZJ_Result;
+
+import java.util.Arrays;
+
+@JCStressTest
+@Description("A record reloaded by the writer while a validation is in flight is never replaced by the stale record.")
+@Outcome(id = "true, true, 0", expect = Expect.ACCEPTABLE, desc = "Validation against the old key, then reload")
+@Outcome(id = "false, true, 0", expect = Expect.ACCEPTABLE, desc = "Reload first; old code rejected")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Stale record written back")
+@State
+public class HOTPReload {
+    private final Service service = Codes.SERVICE;
+    private final String user = Codes.create(Codes.hotpRecord());
+    private final String code = Codes.hotp(Codes.KEY, Codes.START);
+
+    @Actor
+    public void validate(ZZJ_Result r) {
+        r.r1 = service.validateHOTP(user, code);
+    }
+
+    @Actor
+    public void reload() {
+        Codes.apply(Mutation.update(user,
+            Record.builder().mode("HOTP").key(Codes.NEW_KEY).movingFactor(0L).build()));
+    }
+
+    @Arbiter
+    public void arbiter(ZZJ_Result r) {
+        Record record = service.get(user);
+        r.r2 = Arrays.equals(record.getKey(), Codes.NEW_KEY);
+        r.r3 = record.getMovingFactor();
+        Codes.apply(Mutation.delete(user));
+    }
+}
@@ -0,0 +1,38 @@
+package roboath.oath;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.ZZJ_Result;
+
+@JCStressTest
+@Description("A counter resync committed by the writer is never overwritten by a racing validation's counter advance.")
+@Outcome(id = "true, true, 220", expect = Expect.ACCEPTABLE, desc = "Validation first, then resync")
+@Outcome(id = "false, true, 220", expect = Expect.ACCEPTABLE, desc = "Resync first; code is now outside the window")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Resync lost")
+@State
+public class HOTPResync {
+    private final Service service = Codes.SERVICE;
+    private final String user = Codes.create(Codes.hotpRecord());
+    private final String code = Codes.hotp(Codes.KEY, Codes.START);
+
+    @Actor
+    public void validate(ZZJ_Result r) {
+        r.r1 = service.validateHOTP(user, code);
+    }
+
+    @Actor
+    public void resync(ZZJ_Result r) {
+        r.r2 = Codes.apply(Mutation.resync(user, Codes.START + 20));
+    }
+
+    @Arbiter
+    public void arbiter(ZZJ_Result r) {
+        r.r3 = service.get(user).getMovingFactor();
+        Codes.apply(Mutation.delete(user));
+    }
+}
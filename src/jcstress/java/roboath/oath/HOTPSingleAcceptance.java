@@ -0,0 +1,38 @@
+package roboath.oath;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.ZZJ_Result;
+
+@JCStressTest
+@Description("The same HOTP code presented twice at once is accepted exactly once.")
+@Outcome(id = "true, false, 201", expect = Expect.ACCEPTABLE, desc = "First actor accepted")
+@Outcome(id = "false, true, 201", expect = Expect.ACCEPTABLE, desc = "Second actor accepted")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Code replayed, or counter not advanced exactly once")
+@State
+public class HOTPSingleAcceptance {
+    private final Service service = Codes.SERVICE;
+    private final String user = Codes.create(Codes.hotpRecord());
+    private final String code = Codes.hotp(Codes.KEY, Codes.START);
+
+    @Actor
+    public void actor1(ZZJ_Result r) {
+        r.r1 = service.validateHOTP(user, code);
+    }
+
+    @Actor
+    public void actor2(ZZJ_Result r) {
+        r.r2 = service.validateHOTP(user, code);
+    }
+
+    @Arbiter
+    public void arbiter(ZZJ_Result r) {
+        r.r3 = service.get(user).getMovingFactor();
+        Codes.apply(Mutation.delete(user));
+    }
+}
@@ -17,8 +17,12 @@ public class Config {
     @NonNull Path privateKey;
     @NonNull Path certificate;
     @NonNull InetSocketAddress bindAddress;
+    /** Password for the admin commands, in printable ASCII; administration is disabled if null. */
+    String adminPassword;
+    /** Journal of provisioned tokens; they are kept in memory only if null. */
+    Path dataFile;
 
-    static class ConfigBuilder {
+    public static class ConfigBuilder {
         ConfigBuilder() {
             concurrentClientLimit(10);
             shutdownTimeoutSec(5);
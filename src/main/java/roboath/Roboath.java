@@ -27,6 +27,8 @@ public class Roboath {
         Config config = Config.builder()
             .privateKey(Paths.get("key-classic.pem"))
             .certificate(Paths.get("cert-classic.pem"))
+            .dataFile(Paths.get("tokens.journal"))
+            .adminPassword(System.getenv("ROBOATH_ADMIN_PASSWORD"))
             .build();
 
         Executor executor = MoreExecutors.getExitingExecutorService(
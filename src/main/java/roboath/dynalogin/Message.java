@@ -6,13 +6,19 @@ import lombok.Getter;
 enum Message {
     GREETING(220, "Ready"),
     GOODBYE(221, "See ya starside"),
+    ADMIN(235, "Administrator authenticated"),
     OK(250, "Authorized"),
+    APPLIED(250, "Applied"),
+    SEND_RECORDS(354, "Send records; end with \".\""),
     UNAUTHORIZED(401, "Unauthorized"),
     UNKNOWN_COMMAND(500, "Command not recognized"),
     SYNTAX_ERROR(501, "Syntax error in parameter or arguments"),
     NOT_IMPLEMENTED(502, "Command not implemented"),
     TIMEOUT(503, "Timed out waiting for command"),
-    TOO_MANY_ERRORS(504, "Too many errors. Goodbye!");
+    TOO_MANY_ERRORS(504, "Too many errors. Goodbye!"),
+    ADMIN_REQUIRED(530, "Administrator authentication required"),
+    NOT_APPLIED(550, "Not applied"),
+    WRITE_FAILED(551, "Write failed");
 
     @Getter
     private int code;
@@ -1,20 +1,39 @@
 package roboath.dynalogin;
 
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.MDC;
+import roboath.Config;
+import roboath.oath.Mutation;
+import roboath.oath.Record;
 
 import javax.net.ssl.SSLSocket;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.BiPredicate;
 
 @Slf4j
 class Protocol implements Runnable {
     private static final int READ_TIMEOUT_SECS = 10;
     private static final int ERROR_COUNT_THRESHOLD = 8;
+    private static final int BULK_BATCH_SIZE = 1024;
+    private static final int WRITE_TIMEOUT_SECS = 10;
 
+    private final String adminPassword;
     private final roboath.oath.Service oathService;
     private final Socket socket;
 
@@ -22,8 +41,10 @@ class Protocol implements Runnable {
     private int successCount = 0;
     private int failureCount = 0;
     private boolean running = true;
+    private boolean admin = false;
 
-    public Protocol(roboath.oath.Service service, Socket socket) {
+    public Protocol(Config config, roboath.oath.Service service, Socket socket) {
+        this.adminPassword = config.getAdminPassword();
         this.oathService = service;
         this.socket = socket;
     }
@@ -93,14 +114,31 @@ class Protocol implements Runnable {
             return this::udata;
         case "QUIT":
             return this::quit;
+        case "AUTH":
+            return this::auth;
+        case "CREATE":
+        case "UPDATE":
+        case "RESYNC":
+        case "DELETE":
+            return adminOnly(this::mutate);
+        case "BULK":
+            return adminOnly(this::bulk);
         default:
             throw new ProtocolError(Message.UNKNOWN_COMMAND);
         }
     }
 
+    private Handler adminOnly(Handler handler) {
+        return (in, out, args) -> {
+            if (!admin)
+                throw new ProtocolError(Message.ADMIN_REQUIRED);
+            handler.handle(in, out, args);
+        };
+    }
+
     @FunctionalInterface
     private interface Handler {
-        void handle(ProtocolReader in, ProtocolWriter out, String[] args) throws ProtocolError, IOException;
+        void handle(ProtocolReader in, ProtocolWriter out, String[] args) throws ProtocolError, FatalProtocolError, IOException;
     }
 
     private void quit(ProtocolReader in, ProtocolWriter out, String[] args) throws IOException {
@@ -134,6 +172,197 @@ class Protocol implements Runnable {
         }
     }
 
+    private void auth(ProtocolReader in, ProtocolWriter out, String[] args) throws ProtocolError, IOException {
+        if (adminPassword == null)
+            throw new ProtocolError(Message.NOT_IMPLEMENTED, "Administration disabled");
+        if (args.length != 2)
+            throw new ProtocolError(Message.SYNTAX_ERROR, "Expected 2 words");
+        // Constant-time comparison. Failures count towards ERROR_COUNT_THRESHOLD, but that only slows guessing down
+        // to one reconnect per few attempts; the password has to be strong enough on its own.
+        if (!MessageDigest.isEqual(adminPassword.getBytes(StandardCharsets.US_ASCII), args[1].getBytes(StandardCharsets.US_ASCII)))
+            throw new ProtocolError(Message.UNAUTHORIZED);
+        admin = true;
+        log.info("administrator authenticated");
+        out.write(Message.ADMIN);
+    }
+
+    private void mutate(ProtocolReader in, ProtocolWriter out, String[] args) throws ProtocolError, IOException {
+        Mutation m = parseMutation(args);
+        MDC.put("user", m.getUser());
+        try {
+            boolean applied = awaitResults(oathService.apply(Collections.singletonList(m))).get(0);
+            log.info("{} {}", m.getType(), applied ? "applied" : "not applied");
+            out.write(applied ? Message.APPLIED : Message.NOT_APPLIED);
+        } finally {
+            MDC.remove("user");
+        }
+    }
+
+    /**
+     * Streams mutation lines until a line containing only ".". Mutations are submitted in batches while the client
+     * is still sending, with one batch being committed while the next is read. Batches are committed as they fill, so
+     * a session that ends without the terminating line may leave some of its mutations applied.
+     * <p>
+     * Each rejected line is reported, by line number, in a continuation line before the summary.
+     */
+    private void bulk(ProtocolReader in, ProtocolWriter out, String[] args) throws ProtocolError, FatalProtocolError, IOException {
+        if (args.length != 1)
+            throw new ProtocolError(Message.SYNTAX_ERROR, "Expected 1 word");
+        out.write(Message.SEND_RECORDS);
+
+        SortedMap<Integer, String> rejections = new TreeMap<>();
+        List<Mutation> batch = new ArrayList<>(BULK_BATCH_SIZE);
+        List<Integer> batchLines = new ArrayList<>(BULK_BATCH_SIZE);
+        ListenableFuture<List<Boolean>> inFlight = Futures.immediateFuture(Collections.emptyList());
+        List<Mutation> inFlightMutations = Collections.emptyList();
+        List<Integer> inFlightLines = Collections.emptyList();
+        int applied = 0;
+        int lineNumber = 0;
+        boolean done = false;
+        while (!done) {
+            String[] line = in.readArgs();
+            if (line == null) {
+                log.debug("End of stream during BULK");
+                running = false;
+                return;
+            }
+            lineNumber++;
+
+            done = line.length == 1 && line[0].equals(".");
+            if (!done) {
+                try {
+                    batch.add(parseMutation(line));
+                    batchLines.add(lineNumber);
+                } catch (ProtocolError e) {
+                    rejections.put(lineNumber, e.getMessage());
+                }
+            }
+
+            if (done || batch.size() == BULK_BATCH_SIZE) {
+                ListenableFuture<List<Boolean>> next = oathService.apply(batch);
+                applied += tally(inFlight, inFlightMutations, inFlightLines, rejections);
+                inFlight = next;
+                inFlightMutations = batch;
+                inFlightLines = batchLines;
+                batch = new ArrayList<>(BULK_BATCH_SIZE);
+                batchLines = new ArrayList<>(BULK_BATCH_SIZE);
+            }
+        }
+        applied += tally(inFlight, inFlightMutations, inFlightLines, rejections);
+
+        log.info("BULK with applied={}, rejected={}", applied, rejections.size());
+        Message result = rejections.isEmpty() ? Message.APPLIED : Message.NOT_APPLIED;
+        for (Map.Entry<Integer, String> e : rejections.entrySet())
+            out.write(result, String.format("line %d: %s", e.getKey(), e.getValue()), true);
+        out.write(result, String.format("%d applied, %d rejected", applied, rejections.size()));
+    }
+
+    /**
+     * Wait for a BULK batch, recording which of its lines were not applied.
+     *
+     * @return The number of mutations applied.
+     * @throws FatalProtocolError The batch failed. The client is still streaming, so we can't carry on reading its
+     *     lines as commands.
+     */
+    private int tally(ListenableFuture<List<Boolean>> future, List<Mutation> mutations, List<Integer> lines,
+                      Map<Integer, String> rejections) throws FatalProtocolError {
+        List<Boolean> results;
+        try {
+            results = awaitResults(future);
+        } catch (ProtocolError e) {
+            throw new FatalProtocolError(Message.WRITE_FAILED, e.getMessage());
+        }
+
+        int applied = 0;
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i)) {
+                applied++;
+            } else {
+                Mutation m = mutations.get(i);
+                rejections.put(lines.get(i), String.format("%s %s not applied", m.getType(), m.getUser()));
+            }
+        }
+        return applied;
+    }
+
+    private List<Boolean> awaitResults(ListenableFuture<List<Boolean>> future) throws ProtocolError {
+        try {
+            return future.get(WRITE_TIMEOUT_SECS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            log.error("Timed out waiting for write");
+            throw new ProtocolError(Message.WRITE_FAILED, "Timed out waiting for write");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProtocolError(Message.WRITE_FAILED);
+        } catch (ExecutionException e) {
+            log.error("Error during write", e.getCause());
+            throw new ProtocolError(Message.WRITE_FAILED);
+        }
+    }
+
+    private static Mutation parseMutation(String[] args) throws ProtocolError {
+        if (args.length < 2)
+            throw new ProtocolError(Message.SYNTAX_ERROR, "Insufficient arguments");
+
+        switch (args[0].toUpperCase(Locale.ROOT)) {
+        case "CREATE":
+            return Mutation.create(args[1], parseRecord(args));
+        case "UPDATE":
+            return Mutation.update(args[1], parseRecord(args));
+        case "RESYNC":
+            if (args.length != 3)
+                throw new ProtocolError(Message.SYNTAX_ERROR, "Expected 3 words");
+            return Mutation.resync(args[1], parseMovingFactor(args[2]));
+        case "DELETE":
+            if (args.length != 2)
+                throw new ProtocolError(Message.SYNTAX_ERROR, "Expected 2 words");
+            return Mutation.delete(args[1]);
+        default:
+            throw new ProtocolError(Message.UNKNOWN_COMMAND);
+        }
+    }
+
+    /**
+     * Parses {@code <command> <user> <mode> <hex key> [moving factor]}.
+     */
+    private static Record parseRecord(String[] args) throws ProtocolError {
+        if (args.length != 4 && args.length != 5)
+            throw new ProtocolError(Message.SYNTAX_ERROR, "Expected 4 or 5 words");
+
+        byte[] key;
+        try {
+            key = BaseEncoding.base16().decode(args[3].toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ProtocolError(Message.SYNTAX_ERROR, "Key not in hex");
+        }
+
+        switch (args[2]) {
+        case "HOTP":
+            return Record.builder().mode("HOTP").key(key).movingFactor(args.length == 5 ? parseMovingFactor(args[4]) : 0L).build();
+        case "TOTP":
+            if (args.length == 5)
+                throw new ProtocolError(Message.SYNTAX_ERROR, "Moving factor not used with TOTP");
+            return Record.builder().mode("TOTP").key(key).build();
+        default:
+            throw new ProtocolError(Message.SYNTAX_ERROR, "Mode not recognized");
+        }
+    }
+
+    private static long parseMovingFactor(String s) throws ProtocolError {
+        long movingFactor;
+        try {
+            movingFactor = Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new ProtocolError(Message.SYNTAX_ERROR, "Moving factor not a number");
+        }
+        if (movingFactor < 0)
+            throw new ProtocolError(Message.SYNTAX_ERROR, "Moving factor negative");
+        // HOTPValidator takes an int
+        if (movingFactor > Integer.MAX_VALUE)
+            throw new ProtocolError(Message.SYNTAX_ERROR, "Moving factor too large");
+        return movingFactor;
+    }
+
     private BiPredicate<String, String> validatorFor(String name) throws ProtocolError {
         switch (name) {
         case "HOTP":
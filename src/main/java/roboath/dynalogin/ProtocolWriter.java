@@ -14,11 +14,19 @@ class ProtocolWriter implements AutoCloseable {
     }
 
     public void write(Message message) throws IOException {
-        log.debug("{} {}", message.getCode(), message.getDescription());
+        write(message, message.getDescription());
+    }
+
+    public void write(Message message, String description) throws IOException {
+        write(message, description, false);
+    }
+
+    public void write(Message message, String description, boolean partial) throws IOException {
+        log.debug("{} {}", message.getCode(), description);
 
         out.print(message.getCode());
-        out.print(' ');
-        out.print(message.getDescription());
+        out.print(partial ? '-' : ' ');
+        out.print(description);
         out.print("\r\n");
         out.flush();
     }
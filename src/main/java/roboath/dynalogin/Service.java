@@ -1,5 +1,6 @@
 package roboath.dynalogin;
 
+import com.google.common.base.CharMatcher;
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
 import lombok.extern.slf4j.Slf4j;
 import roboath.Config;
@@ -28,6 +29,11 @@ public class Service extends AbstractExecutionThreadService {
 
     @Override
     protected void startUp() throws Exception {
+        // ProtocolReader splits lines into ASCII words, so nothing else could ever match.
+        String adminPassword = config.getAdminPassword();
+        if (adminPassword != null && (adminPassword.isEmpty() || !CharMatcher.inRange('!', '~').matchesAllOf(adminPassword)))
+            throw new IllegalArgumentException("Admin password must be printable ASCII, without spaces");
+
         SSLContext ctx = new SSLContextFactory().getSSLContext(config.getCertificate(), config.getPrivateKey());
         ServerSocketFactory ssf = ctx.getServerSocketFactory();
         serverSocket = (SSLServerSocket) ssf.createServerSocket();
@@ -41,7 +47,7 @@ public class Service extends AbstractExecutionThreadService {
     protected void run() throws IOException {
         for (;;) {
             try {
-                executor.execute(new Protocol(oathService, serverSocket.accept()));
+                executor.execute(new Protocol(config, oathService, serverSocket.accept()));
             } catch (SocketException e) {
                 return;
             }
@@ -0,0 +1,214 @@
+package roboath.oath;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies mutations to the store from a single thread. Whatever has been submitted while the previous batch was being
+ * committed is drained and committed together, with one journal sync for the lot, before anyone is told it's done.
+ * Readers of the store are never blocked by the writer.
+ * <p>
+ * Counter advances made by validation are journalled in the same way, but nobody waits for them: they are picked up
+ * by the next batch, or within {@link #ADVANCE_FLUSH_MS} if there is none. A crash can therefore forget the last
+ * fraction of a second of advances.
+ */
+@Slf4j
+class BatchWriter implements Runnable {
+    private static final int BATCH_LIMIT = 256;
+    private static final long ADVANCE_FLUSH_MS = 100;
+    private static final int COMPACT_RATIO = 4;
+    private static final int COMPACT_MIN_ENTRIES = 4096;
+
+    private static final Pending STOP = new Pending(Collections.emptyList(), SettableFuture.create());
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Set<String> advanced = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ConcurrentMap<String, Record> data;
+    private final Journal journal;
+    private final Runnable onFailure;
+
+    private boolean closed = false;
+    private volatile Exception failure;
+
+    /**
+     * @param journal Where to make commits durable; or null to keep the store in memory only.
+     * @param onFailure Called, from the writer thread, if it stops because a commit failed.
+     */
+    BatchWriter(ConcurrentMap<String, Record> data, Journal journal, Runnable onFailure) {
+        this.data = data;
+        this.journal = journal;
+        this.onFailure = onFailure;
+    }
+
+    /**
+     * @return A future that completes, with one result per mutation, once the batch containing the mutations has
+     *     been committed.
+     */
+    ListenableFuture<List<Boolean>> submit(List<Mutation> mutations) {
+        Pending p = new Pending(new ArrayList<>(mutations), SettableFuture.create());
+        synchronized (queue) {
+            if (closed)
+                p.getResult().setException(new IllegalStateException("Writer is closed"));
+            else
+                queue.add(p);
+        }
+        return p.getResult();
+    }
+
+    /**
+     * Note that validation has advanced {@code user}'s counter, so that it gets journalled. Never waits for the journal.
+     *
+     * @return false if the writer has stopped, so the advance will never be journalled.
+     */
+    boolean advanced(String user) {
+        // Checked under the same lock as close(), so anything added here is drained by the final commit.
+        synchronized (queue) {
+            if (closed)
+                return false;
+            if (journal != null)
+                advanced.add(user);
+            return true;
+        }
+    }
+
+    /**
+     * @return Why the writer stopped early, or null if it didn't.
+     */
+    Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * Stop accepting mutations. Mutations already submitted are still committed before {@link #run} returns, unless
+     * it is interrupted or a commit fails, in which case they fail instead.
+     */
+    void close() {
+        synchronized (queue) {
+            if (!closed) {
+                closed = true;
+                queue.add(STOP);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Pending> batch = new ArrayList<>(BATCH_LIMIT);
+        try {
+            boolean stopping = false;
+            while (!stopping) {
+                Pending first = queue.poll(ADVANCE_FLUSH_MS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_LIMIT - 1);
+                    stopping = batch.remove(STOP);
+                }
+
+                commit(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted with {} pending write requests", queue.size());
+        } catch (Exception e) {
+            log.error("Commit failed; no further writes will be accepted", e);
+            failure = e;
+            fail(batch, e);
+        } finally {
+            // Nobody is left to take from the queue, so don't let anyone wait on it.
+            synchronized (queue) {
+                closed = true;
+            }
+            List<Pending> remaining = new ArrayList<>(queue.size());
+            queue.drainTo(remaining);
+            remaining.remove(STOP);
+            fail(remaining, new IllegalStateException("Writer stopped"));
+
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    log.warn("Unable to close journal", e);
+                }
+            }
+
+            if (failure != null)
+                onFailure.run();
+        }
+    }
+
+    private static void fail(List<Pending> batch, Throwable t) {
+        for (Pending p : batch)
+            p.getResult().setException(t);
+    }
+
+    /**
+     * If this throws, the mutations have been applied in memory but may not be on disk.
+     */
+    private void commit(List<Pending> batch) throws IOException {
+        List<List<Boolean>> results = new ArrayList<>(batch.size());
+        Set<String> mutated = new LinkedHashSet<>();
+        for (Pending p : batch) {
+            List<Boolean> r = new ArrayList<>(p.getMutations().size());
+            for (Mutation m : p.getMutations()) {
+                r.add(m.applyTo(data));
+                mutated.add(m.getUser());
+            }
+            results.add(r);
+        }
+        Set<String> advancedOnly = new LinkedHashSet<>();
+        for (Iterator<String> i = advanced.iterator(); i.hasNext();) {
+            String user = i.next();
+            i.remove();
+            if (!mutated.contains(user))
+                advancedOnly.add(user);
+        }
+
+        // Journal each user's state as it is now, rather than the mutations, so that advances made by validation in
+        // the meantime are never journalled ahead of (and so undone by) an older write. Only this thread changes
+        // anything but counters, so for users that were only advanced, the counter is all that can differ from what
+        // was last journalled.
+        if (journal != null && !(mutated.isEmpty() && advancedOnly.isEmpty())) {
+            for (String user : mutated)
+                journal.append(user, data.get(user));
+            for (String user : advancedOnly) {
+                Record r = data.get(user);
+                if (r != null && "HOTP".equals(r.getMode()))
+                    journal.appendAdvance(user, r.getMovingFactor());
+                else
+                    journal.append(user, r);
+            }
+            journal.sync();
+
+            if (journal.getEntries() > COMPACT_RATIO * Math.max(data.size(), COMPACT_MIN_ENTRIES)) {
+                log.debug("compacting journal of {} entries to {}", journal.getEntries(), data.size());
+                journal.compact(data);
+            }
+        }
+
+        for (int i = 0; i < batch.size(); i++)
+            batch.get(i).getResult().set(results.get(i));
+        if (!batch.isEmpty())
+            log.debug("committed {} users from {} requests", mutated.size(), batch.size());
+    }
+
+    @Value
+    private static class Pending {
+        List<Mutation> mutations;
+        SettableFuture<List<Boolean>> result;
+    }
+}
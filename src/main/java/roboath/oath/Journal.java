@@ -0,0 +1,206 @@
+package roboath.oath;
+
+import com.google.common.io.BaseEncoding;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Append-only file of record states. Each line holds the state of one user after a change: the whole record, its
+ * deletion, or just its new HOTP counter. Replaying the file in order, last line wins, rebuilds the store.
+ */
+@Slf4j
+class Journal implements AutoCloseable {
+    private static final BaseEncoding HEX = BaseEncoding.base16();
+
+    private final Path path;
+
+    private FileOutputStream stream;
+    private Writer out;
+    private int entries = 0;
+
+    private Journal(Path path) throws IOException {
+        this.path = path;
+        openForAppend();
+    }
+
+    /**
+     * Load the records in {@code path} into {@code data}, rewrite the file to hold only their current state, and open
+     * it for appending.
+     */
+    static Journal open(Path path, ConcurrentMap<String, Record> data) throws IOException {
+        if (Files.exists(path))
+            replay(path, data);
+
+        writeSnapshot(path, data);
+        Journal j = new Journal(path);
+        j.entries = data.size();
+        return j;
+    }
+
+    /**
+     * Rewrite the file to hold only the current state of {@code data}.
+     * <p>
+     * Validation may advance counters while this reads them. That's fine as long as those advances are appended
+     * afterwards, which they are: they are queued for the writer only once they are in {@code data}.
+     */
+    void compact(Map<String, Record> data) throws IOException {
+        out.close();
+        writeSnapshot(path, data);
+        openForAppend();
+        entries = data.size();
+    }
+
+    /**
+     * @return How many entries the file holds; compare with the number of users to decide when to {@link #compact}.
+     */
+    int getEntries() {
+        return entries;
+    }
+
+    private void openForAppend() throws IOException {
+        stream = new FileOutputStream(path.toFile(), true);
+        out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.US_ASCII));
+    }
+
+    private static void writeSnapshot(Path path, Map<String, Record> data) throws IOException {
+        // Holds every secret key, so create it owner-only before writing any. The rename keeps its permissions.
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        if (tmp.getFileSystem().supportedFileAttributeViews().contains("posix"))
+            Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        else
+            Files.createFile(tmp);
+        try (Journal j = new Journal(tmp)) {
+            for (Map.Entry<String, Record> e : data.entrySet())
+                j.append(e.getKey(), e.getValue());
+            j.sync();
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // Make the rename durable too, or a crash could bring back the old file and lose what we append to the new one.
+        try (FileChannel dir = FileChannel.open(path.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+    }
+
+    static void replay(Path path, ConcurrentMap<String, Record> data) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+            StringBuilder line = new StringBuilder();
+            int lineNumber = 0;
+            for (int c = in.read(); c != -1; c = in.read()) {
+                if (c != '\n') {
+                    line.append((char) c);
+                    continue;
+                }
+                lineNumber++;
+                try {
+                    replayLine(line.toString().split(" "), data);
+                } catch (RuntimeException e) {
+                    throw new IOException(String.format("Corrupt entry at %s:%d", path, lineNumber), e);
+                }
+                line.setLength(0);
+            }
+            // The newline is the last thing appended, so without it the line may have been cut anywhere, even somewhere
+            // that still parses. It was never acknowledged, so drop it.
+            if (line.length() != 0)
+                log.warn("Ignoring incomplete last line of {}", path);
+        }
+    }
+
+    private static void replayLine(String[] args, ConcurrentMap<String, Record> data) {
+        switch (args[0]) {
+        case "PUT":
+            if (args.length < 4)
+                throw new IllegalArgumentException("Truncated PUT");
+            Record.RecordBuilder b = Record.builder().mode(args[2]).key(HEX.decode(args[3]));
+            switch (args[2]) {
+            case "HOTP":
+                if (args.length != 5)
+                    throw new IllegalArgumentException("HOTP entry without moving factor");
+                b.movingFactor(parseMovingFactor(args[4]));
+                break;
+            case "TOTP":
+                if (args.length != 4)
+                    throw new IllegalArgumentException("TOTP entry with moving factor");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mode " + args[2]);
+            }
+            data.put(args[1], b.build());
+            break;
+        case "ADV": {
+            if (args.length != 3)
+                throw new IllegalArgumentException("Malformed ADV");
+            Record r = data.get(args[1]);
+            if (r == null || !"HOTP".equals(r.getMode()))
+                throw new IllegalArgumentException("ADV for a user without an HOTP token");
+            data.put(args[1], r.withMovingFactor(parseMovingFactor(args[2])));
+            break;
+        }
+        case "DEL":
+            if (args.length != 2)
+                throw new IllegalArgumentException("Malformed DEL");
+            data.remove(args[1]);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown entry " + args[0]);
+        }
+    }
+
+    private static long parseMovingFactor(String s) {
+        long movingFactor = Long.parseLong(s);
+        if (movingFactor < 0 || movingFactor > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Moving factor out of range");
+        return movingFactor;
+    }
+
+    /**
+     * @param record The user's current record, or null if the user has been deleted.
+     */
+    void append(String user, Record record) throws IOException {
+        if (record == null) {
+            out.write("DEL " + user + "\n");
+        } else {
+            out.write("PUT " + user + " " + record.getMode() + " " + HEX.encode(record.getKey()));
+            if (record.getMovingFactor() != null)
+                out.write(" " + record.getMovingFactor());
+            out.write("\n");
+        }
+        entries++;
+    }
+
+    /**
+     * Record just a new counter for {@code user}, whose last appended record must be HOTP.
+     */
+    void appendAdvance(String user, long movingFactor) throws IOException {
+        out.write("ADV " + user + " " + movingFactor + "\n");
+        entries++;
+    }
+
+    /**
+     * Block until everything appended so far is on disk.
+     */
+    void sync() throws IOException {
+        out.flush();
+        stream.getChannel().force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
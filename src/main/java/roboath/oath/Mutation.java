@@ -0,0 +1,68 @@
+package roboath.oath;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A single change to the token store, applied by {@link Service#apply}.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class Mutation {
+    public enum Type {
+        CREATE,
+        UPDATE,
+        RESYNC,
+        DELETE
+    }
+
+    @NonNull Type type;
+    @NonNull String user;
+    Record record;
+    Long movingFactor;
+
+    public static Mutation create(String user, @NonNull Record record) {
+        return new Mutation(Type.CREATE, user, record, null);
+    }
+
+    public static Mutation update(String user, @NonNull Record record) {
+        return new Mutation(Type.UPDATE, user, record, null);
+    }
+
+    public static Mutation resync(String user, long movingFactor) {
+        return new Mutation(Type.RESYNC, user, null, movingFactor);
+    }
+
+    public static Mutation delete(String user) {
+        return new Mutation(Type.DELETE, user, null, null);
+    }
+
+    /**
+     * @return false if the mutation did not apply (the user already exists for CREATE, or does not exist otherwise).
+     */
+    boolean applyTo(ConcurrentMap<String, Record> data) {
+        switch (type) {
+        case CREATE:
+            return data.putIfAbsent(user, record) == null;
+        case UPDATE:
+            return data.replace(user, record) != null;
+        case RESYNC:
+            // Compare-and-set so that we neither block nor lose a counter advance made by a concurrent validation.
+            for (;;) {
+                Record r = data.get(user);
+                if (r == null || !"HOTP".equals(r.getMode()))
+                    return false;
+                if (data.replace(user, r, r.withMovingFactor(movingFactor)))
+                    return true;
+            }
+        case DELETE:
+            return data.remove(user) != null;
+        default:
+            throw new AssertionError(type);
+        }
+    }
+}
@@ -1,14 +1,19 @@
 package roboath.oath;
 
 import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lochbridge.oath.otp.HOTPValidationResult;
 import com.lochbridge.oath.otp.HOTPValidator;
 import com.lochbridge.oath.otp.TOTP;
 import lombok.extern.slf4j.Slf4j;
 import roboath.Config;
 
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
@@ -16,6 +21,8 @@ public class Service extends AbstractIdleService {
     private final Config config;
 
     private ConcurrentMap<String, Record> data;
+    private BatchWriter writer;
+    private ExecutorService writerExecutor;
 
     public Service(Config config) {
         this.config = config;
@@ -24,12 +31,46 @@ public class Service extends AbstractIdleService {
     @Override
     protected void startUp() throws Exception {
         data = new ConcurrentHashMap<>();
-        data.put("sam", Record.builder().mode("HOTP").key(new byte[20]).movingFactor(200L).build());
+        Journal journal = null;
+        if (config.getDataFile() != null) {
+            journal = Journal.open(config.getDataFile(), data);
+            log.info("Loaded {} records from {}", data.size(), config.getDataFile());
+        } else {
+            log.warn("No data file configured; provisioned tokens will be lost on restart");
+            // Development fixture, with a well-known key; never let it into a real store.
+            data.put("sam", Record.builder().mode("HOTP").key(new byte[20]).movingFactor(200L).build());
+        }
+
+        writer = new BatchWriter(data, journal, this::writerFailed);
+        // Daemon: shutDown() drains it, so it has no business keeping the JVM alive by itself.
+        writerExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("oath-writer").setDaemon(true).build()
+        );
+        writerExecutor.execute(writer);
     }
 
     @Override
     protected void shutDown() throws Exception {
         // wait for any write requests to terminate
+        writer.close();
+        writerExecutor.shutdown();
+        if (!writerExecutor.awaitTermination(config.getShutdownTimeoutSec(), TimeUnit.SECONDS)) {
+            log.warn("Timed out waiting for write requests to terminate");
+            writerExecutor.shutdownNow();
+        }
+
+        // Fail, rather than just stop, so that the ServiceManager takes the whole process down with us.
+        if (writer.getFailure() != null)
+            throw new IllegalStateException("Writer failed", writer.getFailure());
+    }
+
+    /**
+     * Without the writer, nothing more can be journalled, so carrying on would let used codes be replayed after the
+     * next restart.
+     */
+    private void writerFailed() {
+        log.error("Writer failed; stopping");
+        stopAsync();
     }
 
     @Override
@@ -44,11 +85,46 @@ public class Service extends AbstractIdleService {
             return false;
         }
 
-        HOTPValidationResult res = HOTPValidator.lookAheadWindow(8)
-            .validate(r.getKey(), r.getMovingFactor().intValue(), authcode.length(), authcode);
+        for (;;) {
+            if (!"HOTP".equals(r.getMode())) {
+                log.debug("Not an HOTP token");
+                return false;
+            }
+
+            HOTPValidationResult res = HOTPValidator.lookAheadWindow(8)
+                .validate(r.getKey(), r.getMovingFactor().intValue(), authcode.length(), authcode);
+
+            // Only advance the counter if nobody else (another validation, or an admin write) got there first;
+            // otherwise check the code again against whatever they left behind.
+            if (data.replace(user, r, r.withMovingFactor(res.getNewMovingFactor()))) {
+                // An advance that can't be journalled must not count, or the code could be used again after a restart.
+                if (res.isValid() && !writer.advanced(user)) {
+                    log.warn("Writer stopped; rejecting code");
+                    return false;
+                }
+                return res.isValid();
+            }
 
-        data.put(user, r.withMovingFactor(res.getNewMovingFactor()));
-        return res.isValid();
+            r = data.get(user);
+            if (r == null) {
+                log.debug("User removed during validation");
+                return false;
+            }
+        }
+    }
+
+    Record get(String user) {
+        return data.get(user);
+    }
+
+    /**
+     * Queue mutations for the next batch commit, which is journalled to {@link Config#getDataFile()} if there is one.
+     * Validation carries on against the current records in the meantime.
+     *
+     * @return A future that completes, with one result per mutation, once the mutations have been committed.
+     */
+    public ListenableFuture<List<Boolean>> apply(List<Mutation> mutations) {
+        return writer.submit(mutations);
     }
 
     public boolean validateTOTP(String user, String authcode) {
@@ -57,6 +133,10 @@ public class Service extends AbstractIdleService {
             log.debug("User not found");
             return false;
         }
+        if (!"TOTP".equals(r.getMode())) {
+            log.debug("Not a TOTP token");
+            return false;
+        }
 
         TOTP res = TOTP.key(r.getKey())
             .timeStep(TimeUnit.SECONDS.toMillis(30))